@@ -18,26 +18,39 @@ package lt.lemonlabs.android.expandablebuttonmenu;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.animation.AnticipateInterpolator;
 import android.view.animation.OvershootInterpolator;
+import android.widget.Adapter;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.nineoldandroids.animation.Animator;
+import com.nineoldandroids.animation.AnimatorListenerAdapter;
+import com.nineoldandroids.animation.ValueAnimator;
 import com.nineoldandroids.view.ViewHelper;
 import com.nineoldandroids.view.ViewPropertyAnimator;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 @SuppressWarnings("ConstantConditions")
-public class ExpandableButtonMenu extends RelativeLayout implements View.OnClickListener {
+public class ExpandableButtonMenu extends RelativeLayout implements View.OnClickListener, View.OnTouchListener {
 
     private static final String TAG = "ExpandableButtonMenu";
 
@@ -45,6 +58,13 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         MID, LEFT, RIGHT
     }
 
+    /**
+     * Buttons shown by the expanded menu
+     */
+    private static final List<MenuButton> SHOWN_BUTTONS =
+            Collections.unmodifiableList(Arrays.asList(MenuButton.LEFT, MenuButton.MID, MenuButton.RIGHT));
+    private static final List<MenuButton> NO_BUTTONS = Collections.emptyList();
+
     /**
      * DEFAULT BUTTON SIZE AND DISTANCE VALUES
      */
@@ -57,10 +77,14 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
 
 
     /**
-     * Screen metrics
+     * Pixel layout of the menu shared by identical menus
+     */
+    private MenuGeometry mGeometry;
+
+    /**
+     * Flag indicating that a geometry update was deferred until the current transition settles
      */
-    protected int sWidth;
-    protected int sHeight;
+    private boolean mGeometryPending;
 
     private ExpandableMenuOverlay mParent;
 
@@ -79,6 +103,12 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
     private TextView mRightText;
     private TextView mLeftText;
 
+    /**
+     * Scrollable ring of adapter items shown instead of the three menu buttons, if set
+     */
+    private RadialMenuView mRadialView;
+    private OnRadialItemClick mRadialListener;
+
     /**
      * Flag indicating that the menu is expanded or collapsed
      */
@@ -94,6 +124,52 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      */
     private boolean mAnimating;
 
+    /**
+     * Motion quality tier forced by the user, or null to pick one automatically
+     */
+    private MotionQuality mMotionQualityOverride;
+
+    /**
+     * Motion quality tier used for the current transition
+     */
+    private MotionQuality mMotionQuality = MotionQuality.FULL;
+
+    /**
+     * Frames drawn during the current transition and the times of the second and last
+     * one, used to measure slow transitions
+     */
+    private int mFrameCount;
+    private long mFramesStart;
+    private long mFramesEnd;
+
+    /**
+     * Batched content update state, see {@link #beginUpdate()}. Pending values
+     * are indexed by {@link MenuButton#ordinal()}
+     */
+    private int mUpdateDepth;
+    private boolean mApplyingUpdate;
+    private boolean mLayoutRequestedDuringUpdate;
+    private final String[] mPendingText = new String[MenuButton.values().length];
+    private final boolean[] mPendingTextSet = new boolean[MenuButton.values().length];
+    private final Drawable[] mPendingImage = new Drawable[MenuButton.values().length];
+    private final boolean[] mPendingImageSet = new boolean[MenuButton.values().length];
+    private int mPendingTextAppearance;
+
+    /**
+     * Text appearance resource last applied to button text views
+     */
+    private int mTextAppearance;
+
+    /**
+     * Flag indicating that transitions animate cached bitmaps of the button
+     * containers instead of the live views
+     */
+    private boolean mSpriteTransitions;
+
+    /**
+     * Image resources last set for menu buttons, 0 if set by a drawable
+     */
+    private final int[] mImageResources = new int[MenuButton.values().length];
 
     /**
      * Menu button position variables in % of screen width or height
@@ -110,6 +186,12 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      */
     private OnMenuButtonClick mListener;
 
+    /**
+     * Early signals of a likely button click. Use setOnMenuPrefetchListener() to
+     * register callbacks
+     */
+    private OnMenuPrefetch mPrefetchListener;
+
     public ExpandableButtonMenu(Context context) {
         this(context, null, 0);
     }
@@ -122,8 +204,7 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         super(context, attrs, defStyle);
         inflate();
         parseAttributes(attrs);
-        setViewLayoutParams();
-        calculateAnimationProportions();
+        updateGeometry();
     }
 
 
@@ -148,6 +229,80 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         mListener = listener;
     }
 
+    /**
+     * Set a callback notified when the menu expands and when a finger goes down
+     * or hovers over a menu button or a ring item, before the click
+     *
+     * @param listener
+     */
+    public void setOnMenuPrefetchListener(OnMenuPrefetch listener) {
+        mPrefetchListener = listener;
+        if (mRadialView != null) {
+            mRadialView.setOnMenuPrefetchListener(listener);
+        }
+    }
+
+    /**
+     * Show a scrollable ring of items from an adapter instead of the three menu buttons.
+     * Only the items visible on the ring are kept as views, the rest are recycled while
+     * the ring is scrolled. Item views should not be clickable, clicks are reported
+     * through {@link #setOnRadialItemClickListener(OnRadialItemClick)}.
+     * Switching between the ring and the three buttons is only allowed while the menu
+     * is collapsed, the adapter of a ring can be replaced at any time.
+     *
+     * @param adapter item adapter, or null to show the three menu buttons again
+     */
+    public void setRadialAdapter(Adapter adapter) {
+        if ((adapter == null) != (mRadialView == null) && (mExpanded || mAnimating)) {
+            throw new IllegalStateException("Radial adapter can only be set or removed while the menu is collapsed");
+        }
+
+        if (adapter == null) {
+            if (mRadialView != null) {
+                mRadialView.setAdapter(null);
+                ((ViewGroup) mRadialView.getParent()).removeView(mRadialView);
+                mRadialView = null;
+            }
+            return;
+        }
+
+        if (mRadialView == null) {
+            mRadialView = new RadialMenuView(getContext());
+            mRadialView.setId(R.id.ebm__menu_radial);
+            mRadialView.setOnClickListener(this);
+            mRadialView.setOnRadialItemClickListener(mRadialListener);
+            mRadialView.setOnMenuPrefetchListener(mPrefetchListener);
+            mRadialView.setVisibility(mExpanded ? View.VISIBLE : View.GONE);
+
+            // Added right below the close button so it stays on top
+            final ViewGroup root = (ViewGroup) mCloseBtn.getParent();
+            root.addView(mRadialView, root.indexOfChild(mCloseBtn),
+                    new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            updateRadialGeometry();
+
+            mMidContainer.setVisibility(View.GONE);
+            mRightContainer.setVisibility(View.GONE);
+            mLeftContainer.setVisibility(View.GONE);
+        }
+        mRadialView.setAdapter(adapter);
+    }
+
+    public Adapter getRadialAdapter() {
+        return mRadialView != null ? mRadialView.getAdapter() : null;
+    }
+
+    /**
+     * Set a callback on clicks of items shown by {@link ExpandableButtonMenu#setRadialAdapter(Adapter)}
+     *
+     * @param listener
+     */
+    public void setOnRadialItemClickListener(OnRadialItemClick listener) {
+        mRadialListener = listener;
+        if (mRadialView != null) {
+            mRadialView.setOnRadialItemClickListener(listener);
+        }
+    }
+
     /**
      * Returns the menu button container. The first child of the container is
      * a TextView, the second - an ImageButton
@@ -166,15 +321,79 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         return null;
     }
 
+    /**
+     * Start collecting content changes. Text, image and text appearance changes made
+     * until the matching {@link #commit()} are applied together in a single layout pass.
+     * Calls can be nested.
+     */
+    public void beginUpdate() {
+        mUpdateDepth++;
+    }
+
+    /**
+     * Apply content changes collected since {@link #beginUpdate()}
+     */
+    public void commit() {
+        if (mUpdateDepth == 0) {
+            throw new IllegalStateException("commit() called without beginUpdate()");
+        }
+        if (--mUpdateDepth > 0) {
+            return;
+        }
+
+        mApplyingUpdate = true;
+        try {
+            if (mPendingTextAppearance != 0) {
+                applyTextAppearance(mPendingTextAppearance);
+                mPendingTextAppearance = 0;
+            }
+            for (MenuButton button : MenuButton.values()) {
+                final int i = button.ordinal();
+                if (mPendingTextSet[i]) {
+                    applyText(button, mPendingText[i]);
+                    mPendingTextSet[i] = false;
+                    mPendingText[i] = null;
+                }
+                if (mPendingImageSet[i]) {
+                    applyImage(button, mPendingImage[i]);
+                    mPendingImageSet[i] = false;
+                    mPendingImage[i] = null;
+                }
+            }
+        } finally {
+            mApplyingUpdate = false;
+        }
+
+        if (mLayoutRequestedDuringUpdate) {
+            mLayoutRequestedDuringUpdate = false;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Layout requests of the menu buttons are collected while a batched update is
+     * applied and issued once at the end of {@link #commit()}
+     */
+    @Override
+    public void requestLayout() {
+        if (mApplyingUpdate) {
+            mLayoutRequestedDuringUpdate = true;
+            return;
+        }
+        super.requestLayout();
+    }
+
     /**
      * Set text appearance for button text views
      *
      * @param appearanceResource
      */
     public void setMenuTextAppearance(int appearanceResource) {
-        mLeftText.setTextAppearance(getContext(), appearanceResource);
-        mMidText.setTextAppearance(getContext(), appearanceResource);
-        mRightText.setTextAppearance(getContext(), appearanceResource);
+        if (mUpdateDepth > 0) {
+            mPendingTextAppearance = appearanceResource;
+        } else {
+            applyTextAppearance(appearanceResource);
+        }
     }
 
     /**
@@ -184,7 +403,12 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      * @param imageResource
      */
     public void setMenuButtonImage(MenuButton button, int imageResource) {
+        final int i = button.ordinal();
+        if (imageResource != 0 && imageResource == mImageResources[i] && !mPendingImageSet[i]) {
+            return;
+        }
         setMenuButtonImage(button, getResources().getDrawable(imageResource));
+        mImageResources[i] = imageResource;
     }
 
     /**
@@ -194,16 +418,12 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      * @param drawable
      */
     public void setMenuButtonImage(MenuButton button, Drawable drawable) {
-        switch (button) {
-            case MID:
-                mMidBtn.setImageDrawable(drawable);
-                break;
-            case LEFT:
-                mLeftBtn.setImageDrawable(drawable);
-                break;
-            case RIGHT:
-                mRightBtn.setImageDrawable(drawable);
-                break;
+        mImageResources[button.ordinal()] = 0;
+        if (mUpdateDepth > 0) {
+            mPendingImage[button.ordinal()] = drawable;
+            mPendingImageSet[button.ordinal()] = true;
+        } else {
+            applyImage(button, drawable);
         }
     }
 
@@ -224,17 +444,59 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      * @param text
      */
     public void setMenuButtonText(MenuButton button, String text) {
+        if (mUpdateDepth > 0) {
+            mPendingText[button.ordinal()] = text;
+            mPendingTextSet[button.ordinal()] = true;
+        } else {
+            applyText(button, text);
+        }
+    }
+
+    private void applyTextAppearance(int appearanceResource) {
+        if (appearanceResource == mTextAppearance) {
+            return;
+        }
+        mTextAppearance = appearanceResource;
+        mSpritesValid = false;
+        mLeftText.setTextAppearance(getContext(), appearanceResource);
+        mMidText.setTextAppearance(getContext(), appearanceResource);
+        mRightText.setTextAppearance(getContext(), appearanceResource);
+    }
+
+    private void applyImage(MenuButton button, Drawable drawable) {
+        final ImageButton image = getMenuButtonImage(button);
+        if (image.getDrawable() != drawable) {
+            image.setImageDrawable(drawable);
+            mSpritesValid = false;
+        }
+    }
+
+    private void applyText(MenuButton button, String text) {
+        final TextView textView = getMenuButtonText(button);
+        if (!TextUtils.equals(textView.getText(), text)) {
+            textView.setText(text);
+            mSpritesValid = false;
+        }
+    }
+
+    private ImageButton getMenuButtonImage(MenuButton button) {
         switch (button) {
-            case MID:
-                mMidText.setText(text);
-                break;
             case LEFT:
-                mLeftText.setText(text);
-                break;
+                return mLeftBtn;
             case RIGHT:
-                mRightText.setText(text);
-                break;
+                return mRightBtn;
         }
+        return mMidBtn;
+    }
+
+    private TextView getMenuButtonText(MenuButton button) {
+        switch (button) {
+            case LEFT:
+                return mLeftText;
+            case RIGHT:
+                return mRightText;
+        }
+        return mMidText;
     }
 
     public void setAllowOverlayClose(boolean allow) {
@@ -243,10 +505,64 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
 
     public void setAnimating(boolean isAnimating) { mAnimating = isAnimating;}
 
+    /**
+     * Animate cached bitmaps of the menu buttons instead of redrawing the live views on
+     * every frame. The bitmaps are redrawn only when button text, image or text appearance
+     * changes. Meant for very low-end devices.
+     *
+     * @param useSprites
+     */
+    public void setUseSpriteTransitions(boolean useSprites) {
+        mSpriteTransitions = useSprites;
+        if (!useSprites) {
+            releaseSprites();
+        }
+    }
+
+    public boolean isUseSpriteTransitions() {
+        return mSpriteTransitions;
+    }
+
+    /**
+     * Force a motion quality tier for expand and collapse transitions
+     *
+     * @param quality tier to use, or null to pick one automatically from device signals
+     */
+    public void setMotionQuality(MotionQuality quality) {
+        mMotionQualityOverride = quality;
+    }
+
+    /**
+     * Returns the forced motion quality tier, or null if it is picked automatically
+     */
+    public MotionQuality getMotionQuality() {
+        return mMotionQualityOverride;
+    }
+
+    /**
+     * Resolves the motion quality tier for the next transition. Called when the menu
+     * starts expanding, or by the parent overlay before the menu is shown.
+     *
+     * @return resolved tier
+     */
+    public MotionQuality updateMotionQuality() {
+        final MotionQuality quality = mMotionQualityOverride != null
+                ? mMotionQualityOverride : MotionQualityHelper.resolve(getContext());
+        if (quality != mMotionQuality) {
+            mMotionQuality = quality;
+            createInterpolators();
+        }
+        return quality;
+    }
+
     public boolean isExpanded() {
         return mExpanded;
     }
 
+    public boolean isAnimating() {
+        return mAnimating;
+    }
+
     public boolean isAllowOverlayClose() {return mAllowOverlayClose; }
 
     public float getMainButtonSize() {
@@ -276,18 +592,73 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
     public void toggle() {
         if (!mAnimating) {
             mAnimating = true;
+            mFrameCount = 0;
+            // A parent overlay resolves the tier before it shows the menu, the tier also sets its dim
+            if (!mExpanded && mParent == null) {
+                updateMotionQuality();
+            }
+            if (mParent != null) mParent.onTransitionStart(!mExpanded);
+
+            MenuTrace.beginSection(mExpanded ? "EBM:animateCollapse" : "EBM:animateExpand");
             if (mExpanded) {
                 animateCollapse();
             } else {
                 animateExpand();
             }
+            MenuTrace.endSection();
+
+            final ViewTreeObserver observer = getViewTreeObserver();
+            observer.removeOnPreDrawListener(FRAME_LISTENER);
+            observer.addOnPreDrawListener(FRAME_LISTENER);
+        }
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        if ((event.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+            notifyButtonIntent(v);
+        }
+        return false;
+    }
+
+    private void notifyButtonIntent(View v) {
+        if (mPrefetchListener == null) {
+            return;
+        }
+        int id = v.getId();
+        if (id == R.id.ebm__menu_left_image) {
+            mPrefetchListener.onMenuButtonIntent(MenuButton.LEFT);
+        } else if (id == R.id.ebm__menu_middle_image) {
+            mPrefetchListener.onMenuButtonIntent(MenuButton.MID);
+        } else if (id == R.id.ebm__menu_right_image) {
+            mPrefetchListener.onMenuButtonIntent(MenuButton.RIGHT);
+        }
+    }
+
+    /**
+     * Reports hovering over menu buttons on devices that support it
+     */
+    private void setHoverListeners() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            View.OnHoverListener listener = new View.OnHoverListener() {
+                @Override
+                public boolean onHover(View v, MotionEvent event) {
+                    if (event.getAction() == MotionEvent.ACTION_HOVER_ENTER) {
+                        notifyButtonIntent(v);
+                    }
+                    return false;
+                }
+            };
+            mMidBtn.setOnHoverListener(listener);
+            mRightBtn.setOnHoverListener(listener);
+            mLeftBtn.setOnHoverListener(listener);
         }
     }
 
     @Override
     public void onClick(View v) {
         int id = v.getId();
-        if (id == R.id.ebm__menu_overlay) {
+        if (id == R.id.ebm__menu_overlay || id == R.id.ebm__menu_radial) {
             if (mExpanded && mAllowOverlayClose) toggle();
         } else if (id == R.id.ebm__menu_left_image) {
             if (mListener != null) mListener.onClick(MenuButton.LEFT);
@@ -322,8 +693,7 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         mRightBtn = (ImageButton) findViewById(R.id.ebm__menu_right_image);
         mLeftBtn = (ImageButton) findViewById(R.id.ebm__menu_left_image);
 
-        sWidth = ScreenHelper.getScreenWidth(getContext());
-        sHeight = ScreenHelper.getScreenHeight(getContext());
+        mContainers = new View[]{mMidContainer, mRightContainer, mLeftContainer};
 
         mMidBtn.setEnabled(false);
         mRightBtn.setEnabled(false);
@@ -334,6 +704,11 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         mRightBtn.setOnClickListener(this);
         mLeftBtn.setOnClickListener(this);
         mOverlay.setOnClickListener(this);
+
+        mMidBtn.setOnTouchListener(this);
+        mRightBtn.setOnTouchListener(this);
+        mLeftBtn.setOnTouchListener(this);
+        setHoverListeners();
     }
 
     /**
@@ -351,6 +726,13 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
                 bottomPadding = a.getFloat(R.styleable.ExpandableMenuOverlay_bottomPad, DEFAULT_BOTTOM_PADDING);
                 buttonDistanceY = a.getFloat(R.styleable.ExpandableMenuOverlay_distanceY, DEFAULT_BUTTON_DISTANCE_Y);
                 buttonDistanceX = a.getFloat(R.styleable.ExpandableMenuOverlay_distanceX, DEFAULT_BUTTON_DISTANCE_X);
+                mSpriteTransitions = a.getBoolean(R.styleable.ExpandableMenuOverlay_spriteTransitions, false);
+
+                // motion quality, automatic if not set
+                final int quality = a.getInt(R.styleable.ExpandableMenuOverlay_motionQuality, -1);
+                if (quality >= 0) {
+                    mMotionQualityOverride = MotionQuality.values()[quality];
+                }
 
                 // button resources
                 mCloseBtn.setBackgroundResource(a.getResourceId(R.styleable.ExpandableMenuOverlay_closeButtonSrc, 0));
@@ -369,42 +751,80 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         }
     }
 
+    /**
+     * Returns the pixel layout of this menu
+     */
+    MenuGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Applies the pixel layout for the current screen metrics and button size attributes.
+     * Called again by the parent overlay when the configuration changes. During a
+     * transition, and while expanded below Honeycomb where the expanded layout is
+     * kept in margins, the update is deferred until the menu settles.
+     */
+    void updateGeometry() {
+        if (mAnimating || (mExpanded && Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)) {
+            mGeometryPending = true;
+            return;
+        }
+        mGeometryPending = false;
+
+        mGeometry = MenuGeometry.obtain(getContext(), mainButtonSize, otherButtonSize, bottomPadding, buttonDistanceX, buttonDistanceY);
+
+        setViewLayoutParams();
+        calculateAnimationProportions();
+        if (mRadialView != null) {
+            updateRadialGeometry();
+        } else if (mExpanded) {
+            // Collapsing translates by the new distances, so the expanded buttons have to be there
+            ViewHelper.setTranslationY(mMidContainer, -TRANSLATION_Y);
+            ViewHelper.setTranslationX(mRightContainer, TRANSLATION_X);
+            ViewHelper.setTranslationY(mRightContainer, -TRANSLATION_Y);
+            ViewHelper.setTranslationX(mLeftContainer, -TRANSLATION_X);
+            ViewHelper.setTranslationY(mLeftContainer, -TRANSLATION_Y);
+        }
+        requestLayout();
+        if (mParent != null) mParent.requestLayout();
+    }
+
     /**
      * Initialized the layout of menu buttons. Sets button sizes and distances between them
      * by a % of screen width or height accordingly.
      * Some extra padding between buttons is added by default to avoid intersections.
      */
     private void setViewLayoutParams() {
-        // Some extra margin to center other buttons in the center of the main button
-        final int EXTRA_MARGIN = (int) (sWidth * (mainButtonSize - otherButtonSize) / 2);
-
+        // Bottom margin includes some extra margin to center other buttons in the center of the main button
+        final int BOTTOM_MARGIN = mGeometry.otherButtonBottomMargin;
+        final int BUTTON_SIZE = mGeometry.otherButtonSize;
 
         Log.d(TAG, "otherButton: " + otherButtonSize);
         Log.d(TAG, "mainButton: " + mainButtonSize);
 
         RelativeLayout.LayoutParams rParams = (LayoutParams) mCloseBtn.getLayoutParams();
-        rParams.width = (int) (sWidth * otherButtonSize);
-        rParams.height = (int) (sWidth * otherButtonSize);
-        rParams.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + EXTRA_MARGIN));
+        rParams.width = BUTTON_SIZE;
+        rParams.height = BUTTON_SIZE;
+        rParams.setMargins(0, 0, 0, BOTTOM_MARGIN);
 
         rParams = (LayoutParams) mMidContainer.getLayoutParams();
-        rParams.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + EXTRA_MARGIN));
+        rParams.setMargins(0, 0, 0, BOTTOM_MARGIN);
         rParams = (LayoutParams) mRightContainer.getLayoutParams();
-        rParams.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + EXTRA_MARGIN));
+        rParams.setMargins(0, 0, 0, BOTTOM_MARGIN);
         rParams = (LayoutParams) mLeftContainer.getLayoutParams();
-        rParams.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + EXTRA_MARGIN));
+        rParams.setMargins(0, 0, 0, BOTTOM_MARGIN);
 
         LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) mMidBtn.getLayoutParams();
-        params.width = (int) (sWidth * otherButtonSize );
-        params.height = (int) (sWidth * otherButtonSize );
+        params.width = BUTTON_SIZE;
+        params.height = BUTTON_SIZE;
 
         params = (LinearLayout.LayoutParams) mRightBtn.getLayoutParams();
-        params.width = (int) (sWidth * otherButtonSize );
-        params.height = (int) (sWidth * otherButtonSize);
+        params.width = BUTTON_SIZE;
+        params.height = BUTTON_SIZE;
 
         params = (LinearLayout.LayoutParams) mLeftBtn.getLayoutParams();
-        params.width = (int) (sWidth * otherButtonSize );
-        params.height = (int) (sWidth * otherButtonSize );
+        params.width = BUTTON_SIZE;
+        params.height = BUTTON_SIZE;
     }
 
 
@@ -418,14 +838,13 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
     private volatile byte ANIMATION_COUNTER;
 
     /**
-     * Collapse and expand animation duration
+     * Number of animations started by the current transition
      */
-    private static final int ANIMATION_DURATION = 300;
+    private int mAnimationCount;
 
     /**
-     * Used interpolators
+     * Used interpolators, their tension depends on the motion quality tier
      */
-    private static final float INTERPOLATOR_WEIGHT = 3.0f;
     private AnticipateInterpolator anticipation;
     private OvershootInterpolator overshoot;
 
@@ -444,11 +863,18 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      * Initialized animation properties
      */
     private void calculateAnimationProportions() {
-        TRANSLATION_Y = sHeight * buttonDistanceY;
-        TRANSLATION_X = sWidth * buttonDistanceX;
+        TRANSLATION_Y = mGeometry.translationY;
+        TRANSLATION_X = mGeometry.translationX;
 
-        anticipation = new AnticipateInterpolator(INTERPOLATOR_WEIGHT);
-        overshoot = new OvershootInterpolator(INTERPOLATOR_WEIGHT);
+        createInterpolators();
+    }
+
+    /**
+     * Creates interpolators for the current motion quality tier
+     */
+    private void createInterpolators() {
+        anticipation = new AnticipateInterpolator(mMotionQuality.interpolatorWeight);
+        overshoot = new OvershootInterpolator(mMotionQuality.interpolatorWeight);
     }
 
     /**
@@ -456,17 +882,31 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
      */
     private void animateExpand() {
         mCloseBtn.setVisibility(View.VISIBLE);
+
+        if (mRadialView != null) {
+            if (mPrefetchListener != null) mPrefetchListener.onMenuShown(NO_BUTTONS);
+            startRadialTransition(true);
+            return;
+        }
+
         mMidContainer.setVisibility(View.VISIBLE);
         mRightContainer.setVisibility(View.VISIBLE);
         mLeftContainer.setVisibility(View.VISIBLE);
 
         setButtonsVisibleForPreHC();
 
+        if (mPrefetchListener != null) mPrefetchListener.onMenuShown(SHOWN_BUTTONS);
+
         ANIMATION_COUNTER = 0;
 
-        ViewPropertyAnimator.animate(mMidContainer).setDuration(ANIMATION_DURATION).translationYBy(-TRANSLATION_Y).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
-        ViewPropertyAnimator.animate(mRightContainer).setDuration(ANIMATION_DURATION).translationYBy(-TRANSLATION_Y).translationXBy(TRANSLATION_X).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
-        ViewPropertyAnimator.animate(mLeftContainer).setDuration(ANIMATION_DURATION).translationYBy(-TRANSLATION_Y).translationXBy(-TRANSLATION_X).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        if (mSpriteTransitions && startSpriteTransition(true)) {
+            return;
+        }
+
+        mAnimationCount = 3;
+        ViewPropertyAnimator.animate(mMidContainer).setDuration(mMotionQuality.duration).translationYBy(-TRANSLATION_Y).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        ViewPropertyAnimator.animate(mRightContainer).setDuration(mMotionQuality.duration).translationYBy(-TRANSLATION_Y).translationXBy(TRANSLATION_X).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        ViewPropertyAnimator.animate(mLeftContainer).setDuration(mMotionQuality.duration).translationYBy(-TRANSLATION_Y).translationXBy(-TRANSLATION_X).setInterpolator(overshoot).setListener(ON_EXPAND_COLLAPSE_LISTENER);
     }
 
     /**
@@ -477,19 +917,229 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
 
         ANIMATION_COUNTER = 0;
 
-        ViewPropertyAnimator.animate(mMidContainer).setDuration(ANIMATION_DURATION).translationYBy(TRANSLATION_Y).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
-        ViewPropertyAnimator.animate(mRightContainer).setDuration(ANIMATION_DURATION).translationYBy(TRANSLATION_Y).translationXBy(-TRANSLATION_X).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
-        ViewPropertyAnimator.animate(mLeftContainer).setDuration(ANIMATION_DURATION).translationYBy(TRANSLATION_Y).translationXBy(TRANSLATION_X).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        if (mRadialView != null) {
+            startRadialTransition(false);
+            return;
+        }
 
+        if (mSpriteTransitions && startSpriteTransition(false)) {
+            return;
+        }
+
+        mAnimationCount = 3;
+        ViewPropertyAnimator.animate(mMidContainer).setDuration(mMotionQuality.duration).translationYBy(TRANSLATION_Y).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        ViewPropertyAnimator.animate(mRightContainer).setDuration(mMotionQuality.duration).translationYBy(TRANSLATION_Y).translationXBy(-TRANSLATION_X).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+        ViewPropertyAnimator.animate(mLeftContainer).setDuration(mMotionQuality.duration).translationYBy(TRANSLATION_Y).translationXBy(TRANSLATION_X).setInterpolator(anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+
+    }
+
+    /**
+     * Sets the size of the ring to match the menu buttons it replaces
+     */
+    private void updateRadialGeometry() {
+        mRadialView.setGeometry(mGeometry.otherButtonSize, mGeometry.radialRadius, mGeometry.radialCenterFromBottom);
     }
 
+    /**
+     * Grows the ring out of the close button or shrinks it back
+     *
+     * @param expand
+     */
+    private void startRadialTransition(boolean expand) {
+        ANIMATION_COUNTER = 0;
+        mAnimationCount = 1;
+
+        ViewHelper.setPivotX(mRadialView, getWidth() / 2f);
+        ViewHelper.setPivotY(mRadialView, getHeight() - mRadialView.getCenterFromBottom());
+        if (expand) {
+            ViewHelper.setScaleX(mRadialView, 0f);
+            ViewHelper.setScaleY(mRadialView, 0f);
+            ViewHelper.setAlpha(mRadialView, 0f);
+            mRadialView.setVisibility(View.VISIBLE);
+        }
+
+        final float target = expand ? 1f : 0f;
+        ViewPropertyAnimator.animate(mRadialView).setDuration(mMotionQuality.duration).scaleX(target).scaleY(target).alpha(target)
+                .setInterpolator(expand ? overshoot : anticipation).setListener(ON_EXPAND_COLLAPSE_LISTENER);
+    }
+
+    /**
+     * SPRITE TRANSITION DEFINITIONS
+     */
+
+    /**
+     * Button containers in the order of sprite arrays, and their horizontal direction when expanding
+     */
+    private View[] mContainers;
+    private static final int[] SPRITE_DIRECTION_X = {0, 1, -1};
+
+    /**
+     * Cached bitmaps of the button containers
+     */
+    private final Bitmap[] mSprites = new Bitmap[3];
+    private boolean mSpritesValid;
+
+    /**
+     * Sprite translation at the start of the transition and its change by the end
+     */
+    private final float[] mSpriteFromX = new float[3];
+    private final float[] mSpriteFromY = new float[3];
+    private final float[] mSpriteDeltaX = new float[3];
+    private final float[] mSpriteDeltaY = new float[3];
+
+    /**
+     * View drawing the sprites right below the close button, added on first use
+     */
+    private View mSpriteLayer;
+
+    private ValueAnimator mSpriteAnimator;
+    private float mSpriteFraction;
+
+    /**
+     * Hides the button containers and animates their cached bitmaps instead
+     *
+     * @param expand
+     * @return false if the containers are not laid out yet and can not be rasterized
+     */
+    private boolean startSpriteTransition(boolean expand) {
+        if (!prepareSprites()) {
+            return false;
+        }
+
+        final float dy = expand ? -TRANSLATION_Y : TRANSLATION_Y;
+        final float dx = expand ? TRANSLATION_X : -TRANSLATION_X;
+        for (int i = 0; i < mContainers.length; i++) {
+            mSpriteFromX[i] = ViewHelper.getTranslationX(mContainers[i]);
+            mSpriteFromY[i] = ViewHelper.getTranslationY(mContainers[i]);
+            mSpriteDeltaX[i] = dx * SPRITE_DIRECTION_X[i];
+            mSpriteDeltaY[i] = dy;
+            mContainers[i].setVisibility(View.INVISIBLE);
+        }
+
+        if (mSpriteAnimator == null) {
+            mSpriteAnimator = ValueAnimator.ofFloat(0f, 1f);
+            mSpriteAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    mSpriteFraction = (Float) animation.getAnimatedValue();
+                    if (mSpriteLayer != null) mSpriteLayer.invalidate();
+                }
+            });
+            // Live views are swapped back in before the transition is finalized
+            mSpriteAnimator.addListener(ON_SPRITE_TRANSITION_END_LISTENER);
+            mSpriteAnimator.addListener(ON_EXPAND_COLLAPSE_LISTENER);
+        }
+
+        if (mSpriteLayer == null) {
+            mSpriteLayer = new View(getContext()) {
+                @Override
+                protected void onDraw(Canvas canvas) {
+                    drawSprites(canvas);
+                }
+            };
+            final ViewGroup root = (ViewGroup) mCloseBtn.getParent();
+            root.addView(mSpriteLayer, root.indexOfChild(mCloseBtn),
+                    new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+
+        mAnimationCount = 1;
+        mSpriteFraction = 0f;
+        mSpriteLayer.setVisibility(View.VISIBLE);
+        mSpriteAnimator.setDuration(mMotionQuality.duration);
+        mSpriteAnimator.setInterpolator(expand ? overshoot : anticipation);
+        mSpriteAnimator.start();
+        return true;
+    }
+
+    /**
+     * Rasterizes the button containers unless the cached bitmaps are still valid
+     *
+     * @return false if the containers are not laid out yet
+     */
+    private boolean prepareSprites() {
+        for (int i = 0; i < mContainers.length; i++) {
+            final View container = mContainers[i];
+            final int width = container.getWidth();
+            final int height = container.getHeight();
+            if (width == 0 || height == 0) {
+                return false;
+            }
+
+            Bitmap sprite = mSprites[i];
+            if (mSpritesValid && sprite != null && sprite.getWidth() == width && sprite.getHeight() == height) {
+                continue;
+            }
+            if (sprite == null || sprite.getWidth() != width || sprite.getHeight() != height) {
+                if (sprite != null) sprite.recycle();
+                sprite = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mSprites[i] = sprite;
+            } else {
+                sprite.eraseColor(0);
+            }
+            container.draw(new Canvas(sprite));
+        }
+        mSpritesValid = true;
+        return true;
+    }
+
+    private void releaseSprites() {
+        if (mSpriteLayer != null) {
+            ((ViewGroup) mSpriteLayer.getParent()).removeView(mSpriteLayer);
+            mSpriteLayer = null;
+        }
+        for (int i = 0; i < mSprites.length; i++) {
+            if (mSprites[i] != null) {
+                mSprites[i].recycle();
+                mSprites[i] = null;
+            }
+        }
+        mSpritesValid = false;
+    }
+
+    /**
+     * The dialog window is removed when the menu is dismissed, the sprites are drawn
+     * again on the next expand instead of being held until they are collected
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseSprites();
+    }
+
+    /**
+     * Draws the sprites where the containers would be drawn
+     */
+    private void drawSprites(Canvas canvas) {
+        for (int i = 0; i < mContainers.length; i++) {
+            final View container = mContainers[i];
+            canvas.drawBitmap(mSprites[i],
+                    container.getLeft() + mSpriteFromX[i] + mSpriteDeltaX[i] * mSpriteFraction,
+                    container.getTop() + mSpriteFromY[i] + mSpriteDeltaY[i] * mSpriteFraction,
+                    null);
+        }
+    }
+
+    /**
+     * Moves the live containers to where the sprites ended and shows them again
+     */
+    private Animator.AnimatorListener ON_SPRITE_TRANSITION_END_LISTENER = new AnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            for (int i = 0; i < mContainers.length; i++) {
+                ViewHelper.setTranslationX(mContainers[i], mSpriteFromX[i] + mSpriteDeltaX[i]);
+                ViewHelper.setTranslationY(mContainers[i], mSpriteFromY[i] + mSpriteDeltaY[i]);
+                mContainers[i].setVisibility(View.VISIBLE);
+            }
+            if (mSpriteLayer != null) mSpriteLayer.setVisibility(View.GONE);
+        }
+    };
+
     /**
      * Manually invalidate views for pre-Honeycomb devices
      */
     private void invalidateViewsForPreHC() {
-        if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+        if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB && mRadialView == null) {
 
-            final int EXTRA_BOTTOM_MARGIN = (int) (sWidth * (mainButtonSize - otherButtonSize) / 2);
             if (mExpanded) {
 
                 ViewHelper.setAlpha(mMidContainer, 0f);
@@ -501,7 +1151,7 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
                 ViewPropertyAnimator.animate(mLeftContainer).setDuration(0).translationYBy(-TRANSLATION_Y).translationXBy(-TRANSLATION_X);
 
                 RelativeLayout.LayoutParams params = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-                params.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + EXTRA_BOTTOM_MARGIN));
+                params.setMargins(0, 0, 0, mGeometry.otherButtonBottomMargin);
                 params.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
                 params.addRule(RelativeLayout.CENTER_HORIZONTAL);
                 mMidContainer.setLayoutParams(params);
@@ -520,19 +1170,19 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
                 RelativeLayout.LayoutParams params = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
                 params.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
                 params.addRule(RelativeLayout.CENTER_HORIZONTAL);
-                params.setMargins(0, 0, 0, (int) (sHeight * bottomPadding + TRANSLATION_Y + EXTRA_BOTTOM_MARGIN));
+                params.setMargins(0, 0, 0, mGeometry.expandedButtonBottomMargin);
                 mMidContainer.setLayoutParams(params);
 
                 params = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
                 params.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
                 params.addRule(RelativeLayout.RIGHT_OF, mMidContainer.getId());
-                params.setMargins(EXTRA_MARGIN, 0, 0, (int) (sHeight * bottomPadding + TRANSLATION_Y + EXTRA_BOTTOM_MARGIN));
+                params.setMargins(EXTRA_MARGIN, 0, 0, mGeometry.expandedButtonBottomMargin);
                 mRightContainer.setLayoutParams(params);
 
                 params = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
                 params.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM);
                 params.addRule(RelativeLayout.LEFT_OF, mMidContainer.getId());
-                params.setMargins(0, 0, EXTRA_MARGIN, (int) (sHeight * bottomPadding + TRANSLATION_Y + EXTRA_BOTTOM_MARGIN));
+                params.setMargins(0, 0, EXTRA_MARGIN, mGeometry.expandedButtonBottomMargin);
                 mLeftContainer.setLayoutParams(params);
 
             }
@@ -565,35 +1215,31 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         @Override
         public void onAnimationEnd(Animator animation) {
             ANIMATION_COUNTER++;
-            if (ANIMATION_COUNTER == 1 && mExpanded)
+            if (ANIMATION_COUNTER == 1 && mExpanded && mParent != null)
                 mParent.showInitButton();
 
-            if (ANIMATION_COUNTER == 3) {
+            if (ANIMATION_COUNTER == mAnimationCount) {
+                getViewTreeObserver().removeOnPreDrawListener(FRAME_LISTENER);
+                MotionQualityHelper.reportFrames(getContext(), mFrameCount - 2, mFramesEnd - mFramesStart);
 
                 if (mExpanded) {
+                    // Sprite transitions need the containers laid out to rasterize them
+                    final int hidden = mSpriteTransitions ? View.INVISIBLE : View.GONE;
                     mCloseBtn.setVisibility(View.GONE);
-                    mMidContainer.setVisibility(View.GONE);
-                    mRightContainer.setVisibility(View.GONE);
-                    mLeftContainer.setVisibility(View.GONE);
-                    postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            mParent.dismiss();
-                            mParent.mDismissing = false;
-                        }
-                    }, 75);
+                    mMidContainer.setVisibility(hidden);
+                    mRightContainer.setVisibility(hidden);
+                    mLeftContainer.setVisibility(hidden);
+                    if (mRadialView != null) mRadialView.setVisibility(View.GONE);
+                    postDelayed(DISMISS_RUNNABLE, 75);
                 }
 
-                postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        invalidateViewsForPreHC();
-                        mAnimating = false;
-                        mExpanded = !mExpanded;
-                    }
-                }, 50);
+                postDelayed(FINISH_TRANSITION_RUNNABLE, 50);
 
 
+                // Sprites rasterized while the menu buttons were still disabled are stale
+                if (!mMidBtn.isEnabled() || !mRightBtn.isEnabled() || !mLeftBtn.isEnabled()) {
+                    mSpritesValid = false;
+                }
                 mCloseBtn.setEnabled(true);
                 mMidBtn.setEnabled(true);
                 mRightBtn.setEnabled(true);
@@ -612,6 +1258,61 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         }
     };
 
+    /**
+     * Times the frames drawn during a transition and reports the first one to the parent
+     */
+    private final ViewTreeObserver.OnPreDrawListener FRAME_LISTENER = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            final long now = SystemClock.uptimeMillis();
+            if (mFrameCount == 0 && mParent != null) {
+                mParent.onTransitionFirstFrame();
+            }
+            // The first frame may lay out and draw a new window, timing starts after it
+            if (mFrameCount == 1) {
+                mFramesStart = now;
+            }
+            mFramesEnd = now;
+            mFrameCount++;
+            return true;
+        }
+    };
+
+    /**
+     * Dismisses the parent overlay once the menu is collapsed
+     */
+    private final Runnable DISMISS_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            if (mParent == null) {
+                return;
+            }
+            mParent.dismiss();
+            mParent.mDismissing = false;
+            mParent.onMenuSettled(false);
+        }
+    };
+
+    /**
+     * Flips the menu state once the last transition animation ends
+     */
+    private final Runnable FINISH_TRANSITION_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            MenuTrace.beginSection("EBM:finishTransition");
+            invalidateViewsForPreHC();
+            mAnimating = false;
+            mExpanded = !mExpanded;
+            if (mGeometryPending) {
+                updateGeometry();
+            }
+            if (mExpanded && mParent != null) {
+                mParent.onMenuSettled(true);
+            }
+            MenuTrace.endSection();
+        }
+    };
+
     /**
      * Button click callback interface
      */
@@ -619,6 +1320,42 @@ public class ExpandableButtonMenu extends RelativeLayout implements View.OnClick
         public void onClick(MenuButton action);
     }
 
+    /**
+     * Radial item click callback interface
+     */
+    public interface OnRadialItemClick {
+        public void onItemClick(int position);
+    }
+
+    /**
+     * Prefetch callback interface. Allows to start loading the target of a menu
+     * button before it is clicked
+     */
+    public interface OnMenuPrefetch {
+        /**
+         * Called when the menu starts expanding
+         *
+         * @param buttons unmodifiable list of the buttons shown by the menu, empty
+         *                when the menu shows a ring of items instead
+         */
+        public void onMenuShown(List<MenuButton> buttons);
+
+        /**
+         * Called when a finger goes down or hovers over a menu button
+         *
+         * @param button
+         */
+        public void onMenuButtonIntent(MenuButton button);
+
+        /**
+         * Called when a finger goes down or hovers over an item of the ring
+         * shown by {@link ExpandableButtonMenu#setRadialAdapter(Adapter)}
+         *
+         * @param position adapter position of the item
+         */
+        public void onRadialItemIntent(int position);
+    }
+
 
 }
 
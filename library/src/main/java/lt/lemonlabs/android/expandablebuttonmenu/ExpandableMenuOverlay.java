@@ -19,11 +19,15 @@ package lt.lemonlabs.android.expandablebuttonmenu;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
+import android.widget.Adapter;
 import android.widget.ImageButton;
 import android.widget.RelativeLayout;
 
@@ -39,8 +43,34 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
     private float dimAmount = DEFAULT_DIM_AMOUNT;
     private boolean mAdjustViewSize = true;
 
+    /**
+     * Flag indicating that the menu is prepared as soon as this view is touched,
+     * before the click that shows it
+     */
+    private boolean mPrepareOnTouchDown;
+
+    /**
+     * Flag indicating that the menu was prepared for the next show()
+     */
+    private boolean mPrepared;
+
     protected boolean mDismissing;
 
+    /**
+     * Commands posted from any thread, see {@link #postToggle()}
+     */
+    private MenuCommandQueue mCommandQueue;
+
+    /**
+     * Callback notified when the menu is fully expanded or collapsed
+     */
+    private OnMenuSettled mSettledListener;
+
+    /**
+     * Latency of open and close stages, recorded only while {@link MenuTrace} is enabled
+     */
+    private final MenuTrace mTrace = new MenuTrace();
+
     public ExpandableMenuOverlay(Context context) {
         this(context, null, 0);
     }
@@ -56,6 +86,7 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
             TypedArray a = context.getTheme().obtainStyledAttributes(attrs, R.styleable.ExpandableMenuOverlay, 0, 0);
             try {
                 mAdjustViewSize = a.getBoolean(R.styleable.ExpandableMenuOverlay_adjustViewSize, true);
+                mPrepareOnTouchDown = a.getBoolean(R.styleable.ExpandableMenuOverlay_prepareOnTouchDown, false);
                 dimAmount = a.getFloat(R.styleable.ExpandableMenuOverlay_dimAmount, DEFAULT_DIM_AMOUNT);
             } finally {
                 a.recycle();
@@ -68,21 +99,21 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
     public void init(AttributeSet attrs) {
         // We create a fake dialog which dims the screen and we display the expandable menu as content
         mDialog = new Dialog(getContext(), android.R.style.Theme_Translucent_NoTitleBar);
-        mDialog.getWindow().addFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
-
-        WindowManager.LayoutParams lp = mDialog.getWindow().getAttributes();
-        lp.dimAmount = dimAmount;
-        mDialog.getWindow().setAttributes(lp);
+        applyDim(MotionQuality.FULL);
 
-        mButtonMenu = new ExpandableButtonMenu(getContext(), attrs);
+        mButtonMenu = createButtonMenu(attrs);
         mButtonMenu.setButtonMenuParentOverlay(this);
+        mCommandQueue = new MenuCommandQueue(this);
 
         mDialog.setContentView(mButtonMenu);
         mDialog.setOnShowListener(new DialogInterface.OnShowListener() {
             @Override
             public void onShow(DialogInterface dialogInterface) {
+                mTrace.onWindowShown();
+                MenuTrace.beginSection("EBM:onShow");
                 setVisibility(View.INVISIBLE);
                 mButtonMenu.toggle();
+                MenuTrace.endSection();
             }
         });
 
@@ -95,19 +126,173 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
 
     }
 
+    /**
+     * Creates the button menu shown in the dialog
+     *
+     * @param attrs
+     */
+    ExpandableButtonMenu createButtonMenu(AttributeSet attrs) {
+        return new ExpandableButtonMenu(getContext(), attrs);
+    }
+
     /**
      * Show the dialog, dimming the screen and expanding the button menu
      */
     public void show() {
+        mTrace.onOpenRequested();
+        MenuTrace.beginSection("EBM:show");
+        cancelPrepare();
+        removeCallbacks(CLEAR_PREPARED_RUNNABLE);
+        if (!mPrepared) {
+            applyDim(mButtonMenu.updateMotionQuality());
+        }
+        mPrepared = false;
         mDialog.show();
+        MenuTrace.endSection();
+    }
+
+    /**
+     * Do the expensive part of showing the menu ahead of time: resolve the motion
+     * quality and lay out the dialog window. The menu is still expanded only by
+     * {@link #show()}.
+     */
+    public void prepare() {
+        if (mPrepared || mDialog.isShowing()) {
+            return;
+        }
+
+        applyDim(mButtonMenu.updateMotionQuality());
+
+        // The dialog window is not fullscreen, so it gets the same size as the window
+        // of this view. Unlike the visible display frame, that size does not shrink
+        // while the soft keyboard is shown.
+        final View root = getRootView();
+        final int width = root.getWidth();
+        final int height = root.getHeight();
+        if (width > 0 && height > 0) {
+            final View decor = mDialog.getWindow().getDecorView();
+            decor.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            decor.layout(0, 0, width, height);
+        }
+
+        mPrepared = true;
+    }
+
+    /**
+     * Start preparing the menu when this view is touched, see {@link #prepare()}
+     *
+     * @param prepare
+     */
+    public void setPrepareOnTouchDown(boolean prepare) {
+        mPrepareOnTouchDown = prepare;
+    }
+
+    public boolean isPrepareOnTouchDown() {
+        return mPrepareOnTouchDown;
     }
 
     /**
      * Dismiss the dialog, removing screen dim and hiding the expanded menu
      */
     public void dismiss() {
+        MenuTrace.beginSection("EBM:dismiss");
         mButtonMenu.setAnimating(false);
         mDialog.dismiss();
+        MenuTrace.endSection();
+    }
+
+    /**
+     * Force a motion quality tier for the menu transitions and screen dim
+     *
+     * @param quality tier to use, or null to pick one automatically from device signals
+     */
+    public void setMotionQuality(MotionQuality quality) {
+        mButtonMenu.setMotionQuality(quality);
+    }
+
+    /**
+     * Returns the forced motion quality tier, or null if it is picked automatically
+     */
+    public MotionQuality getMotionQuality() {
+        return mButtonMenu.getMotionQuality();
+    }
+
+    /**
+     * Expand the menu. Safe to call from any thread, the command is applied on the main
+     * thread once the menu finishes its current transition. Commands posted before
+     * that are coalesced and only the last one is applied.
+     */
+    public void postExpand() {
+        mCommandQueue.postExpand();
+    }
+
+    /**
+     * Collapse the menu. Safe to call from any thread, see {@link #postExpand()}
+     */
+    public void postCollapse() {
+        mCommandQueue.postCollapse();
+    }
+
+    /**
+     * Toggle the menu relative to the last posted command or the current transition.
+     * Safe to call from any thread, see {@link #postExpand()}
+     */
+    public void postToggle() {
+        mCommandQueue.postToggle();
+    }
+
+    /**
+     * Set a callback notified on the main thread when the menu is fully expanded or collapsed
+     *
+     * @param listener
+     */
+    public void setOnMenuSettledListener(OnMenuSettled listener) {
+        mSettledListener = listener;
+    }
+
+    /**
+     * Returns true if the menu is fully expanded or collapsed and not in a transition.
+     * Reads main thread state, only called by {@link MenuCommandQueue} on the main thread
+     */
+    boolean isSettled() {
+        return !mButtonMenu.isAnimating() && !mDismissing && mDialog.isShowing() == mButtonMenu.isExpanded();
+    }
+
+    /**
+     * Collapse the expanded menu and dismiss the dialog when done
+     */
+    void collapse() {
+        mDismissing = true;
+        mButtonMenu.toggle();
+    }
+
+    /**
+     * Called by the button menu when a transition starts
+     *
+     * @param expanding
+     */
+    void onTransitionStart(boolean expanding) {
+        if (!expanding) mTrace.onCloseRequested();
+        mCommandQueue.onTransitionStart(expanding);
+    }
+
+    /**
+     * Called by the button menu when the first frame of a transition is drawn
+     */
+    void onTransitionFirstFrame() {
+        mTrace.onFirstFrame();
+    }
+
+    /**
+     * Called by the button menu when it is fully expanded or collapsed
+     *
+     * @param expanded
+     */
+    void onMenuSettled(boolean expanded) {
+        mTrace.onSettled();
+        if (mSettledListener != null) mSettledListener.onMenuSettled(expanded);
+        mCommandQueue.onSettled();
     }
 
     /**
@@ -126,6 +311,34 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
         mButtonMenu.setOnMenuButtonClickListener(listener);
     }
 
+    /**
+     * Set a callback notified when the menu expands and before a menu button is clicked
+     *
+     * @param listener
+     */
+    public void setOnMenuPrefetchListener(ExpandableButtonMenu.OnMenuPrefetch listener) {
+        mButtonMenu.setOnMenuPrefetchListener(listener);
+    }
+
+    /**
+     * Show a scrollable ring of adapter items instead of the three menu buttons.
+     * Switching between the two is only allowed while the menu is collapsed.
+     *
+     * @param adapter item adapter, or null to show the three menu buttons again
+     */
+    public void setRadialAdapter(Adapter adapter) {
+        mButtonMenu.setRadialAdapter(adapter);
+    }
+
+    /**
+     * Set a callback on clicks of items shown by {@link #setRadialAdapter(Adapter)}
+     *
+     * @param listener
+     */
+    public void setOnRadialItemClickListener(ExpandableButtonMenu.OnRadialItemClick listener) {
+        mButtonMenu.setOnRadialItemClickListener(listener);
+    }
+
     /**
      * Get underlying expandable buttom menu
      *
@@ -136,17 +349,56 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
     }
 
 
+    /**
+     * Enables or disables the screen dim depending on the motion quality tier
+     *
+     * @param quality
+     */
+    private void applyDim(MotionQuality quality) {
+        if (quality.dim) {
+            mDialog.getWindow().addFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
+            WindowManager.LayoutParams lp = mDialog.getWindow().getAttributes();
+            lp.dimAmount = dimAmount;
+            mDialog.getWindow().setAttributes(lp);
+        } else {
+            mDialog.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
+        }
+    }
+
     @Override
     public boolean onKey(DialogInterface dialog, int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_BACK && event.getAction() == KeyEvent.ACTION_UP && !event.isCanceled() && !mDismissing) {
             if (mButtonMenu.isExpanded()) {
-                mDismissing = true;
-                mButtonMenu.toggle();
+                collapse();
             }
         }
         return true;
     }
 
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mPrepareOnTouchDown) {
+            switch (event.getAction() & MotionEvent.ACTION_MASK) {
+                case MotionEvent.ACTION_DOWN:
+                    // Prepared after the next frame, so the pressed state is drawn first
+                    cancelPrepare();
+                    getViewTreeObserver().addOnPreDrawListener(PREPARE_AFTER_DRAW_LISTENER);
+                    invalidate();
+                    break;
+                case MotionEvent.ACTION_UP:
+                    // Posted after the click, which is posted by super.onTouchEvent()
+                    final boolean handled = super.onTouchEvent(event);
+                    post(CLEAR_PREPARED_RUNNABLE);
+                    return handled;
+                case MotionEvent.ACTION_CANCEL:
+                    cancelPrepare();
+                    mPrepared = false;
+                    break;
+            }
+        }
+        return super.onTouchEvent(event);
+    }
+
     @Override
     public void onClick(View v) {
         int id = v.getId();
@@ -169,15 +421,74 @@ public class ExpandableMenuOverlay extends ImageButton implements DialogInterfac
                 throw new IllegalStateException("Only RelativeLayout is supported as parent of this view");
             }
 
-            final int sWidth = ScreenHelper.getScreenWidth(getContext());
-            final int sHeight = ScreenHelper.getScreenHeight(getContext());
+            final MenuGeometry geometry = mButtonMenu.getGeometry();
 
             RelativeLayout.LayoutParams params = (RelativeLayout.LayoutParams) getLayoutParams();
 
-            params.width = (int) (sWidth * mButtonMenu.getMainButtonSize());
-            params.height = (int) (sWidth * mButtonMenu.getMainButtonSize());
-            params.setMargins(0, 0, 0, (int) (sHeight * mButtonMenu.getBottomPadding()));
+            params.width = geometry.mainButtonSize;
+            params.height = geometry.mainButtonSize;
+            params.setMargins(0, 0, 0, geometry.mainButtonBottomMargin);
         }
     }
 
+    /**
+     * Screen metrics may change with the configuration, the menu geometry is computed again
+     */
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        mButtonMenu.updateGeometry();
+        requestLayout();
+    }
+
+    /**
+     * Drops a preparation that was scheduled by a touch down but has not run yet
+     */
+    private void cancelPrepare() {
+        getViewTreeObserver().removeOnPreDrawListener(PREPARE_AFTER_DRAW_LISTENER);
+        removeCallbacks(PREPARE_RUNNABLE);
+    }
+
+    /**
+     * Posts the preparation from the frame that draws the pressed state. The posted
+     * runnable runs once that frame is done drawing.
+     */
+    private final ViewTreeObserver.OnPreDrawListener PREPARE_AFTER_DRAW_LISTENER = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            getViewTreeObserver().removeOnPreDrawListener(this);
+            post(PREPARE_RUNNABLE);
+            return true;
+        }
+    };
+
+    /**
+     * Prepares the menu after a touch down, removed again if the touch is cancelled
+     */
+    private final Runnable PREPARE_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            prepare();
+        }
+    };
+
+    /**
+     * Drops the preparation if the touch was released without showing the menu
+     */
+    private final Runnable CLEAR_PREPARED_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            cancelPrepare();
+            mPrepared = false;
+        }
+    };
+
+
+    /**
+     * Settled state callback interface
+     */
+    public interface OnMenuSettled {
+        public void onMenuSettled(boolean expanded);
+    }
+
 }
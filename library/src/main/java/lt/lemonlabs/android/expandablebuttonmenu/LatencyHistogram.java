@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histogram with fixed millisecond buckets. Recording does not allocate.
+ */
+class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in milliseconds, the last bucket holds everything above
+     */
+    private static final int[] BUCKET_BOUNDS = {4, 8, 16, 33, 50, 100, 200, 400, 800};
+
+    private final String mName;
+    private final int[] mCounts = new int[BUCKET_BOUNDS.length + 1];
+    private int mCount;
+    private long mTotalMillis;
+    private long mMaxMillis;
+
+    LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    synchronized void record(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mTotalMillis += millis;
+        if (millis > mMaxMillis) {
+            mMaxMillis = millis;
+        }
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mTotalMillis = 0;
+        mMaxMillis = 0;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.print(mName);
+        writer.print(": count=");
+        writer.print(mCount);
+        if (mCount > 0) {
+            writer.print(" avg=");
+            writer.print(mTotalMillis / mCount);
+            writer.print("ms max=");
+            writer.print(mMaxMillis);
+            writer.print("ms");
+        }
+        writer.println();
+
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] == 0) {
+                continue;
+            }
+            writer.print("  ");
+            writer.print(i < BUCKET_BOUNDS.length ? "<=" + BUCKET_BOUNDS[i] : ">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]);
+            writer.print("ms: ");
+            writer.println(mCounts[i]);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expand and collapse commands that can be posted from any thread. Commands are
+ * coalesced into a single pending target state, which is applied on the main
+ * thread once the menu is not in the middle of a transition.
+ */
+class MenuCommandQueue {
+
+    private static final int TARGET_NONE = 0;
+    private static final int TARGET_EXPANDED = 1;
+    private static final int TARGET_COLLAPSED = 2;
+
+    private final ExpandableMenuOverlay mOverlay;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Pending target state, only the latest command is kept
+     */
+    private final AtomicInteger mTarget = new AtomicInteger(TARGET_NONE);
+
+    /**
+     * Flag indicating that DRAIN_RUNNABLE is posted to the main thread
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * State the menu is in or is currently moving to
+     */
+    private volatile boolean mExpanding;
+
+    MenuCommandQueue(ExpandableMenuOverlay overlay) {
+        mOverlay = overlay;
+    }
+
+    void postExpand() {
+        mTarget.set(TARGET_EXPANDED);
+        schedule();
+    }
+
+    void postCollapse() {
+        mTarget.set(TARGET_COLLAPSED);
+        schedule();
+    }
+
+    /**
+     * Toggles relative to the pending command, or to the current transition if there is none
+     */
+    void postToggle() {
+        int target;
+        int next;
+        do {
+            target = mTarget.get();
+            final boolean expanded = target == TARGET_NONE ? mExpanding : target == TARGET_EXPANDED;
+            next = expanded ? TARGET_COLLAPSED : TARGET_EXPANDED;
+        } while (!mTarget.compareAndSet(target, next));
+        schedule();
+    }
+
+    /**
+     * Called on the main thread when a transition starts
+     *
+     * @param expanding
+     */
+    void onTransitionStart(boolean expanding) {
+        mExpanding = expanding;
+    }
+
+    /**
+     * Called on the main thread when the menu is settled. Applies a command that
+     * was posted during the transition.
+     */
+    void onSettled() {
+        if (mTarget.get() != TARGET_NONE) {
+            drain();
+        }
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mHandler.post(DRAIN_RUNNABLE);
+        }
+    }
+
+    private void drain() {
+        if (!mOverlay.isSettled()) {
+            // Retried from onSettled()
+            return;
+        }
+
+        final int target = mTarget.getAndSet(TARGET_NONE);
+        final boolean expanded = mOverlay.getButtonMenu().isExpanded();
+        if (target == TARGET_EXPANDED && !expanded) {
+            mOverlay.show();
+        } else if (target == TARGET_COLLAPSED && expanded) {
+            mOverlay.collapse();
+        }
+    }
+
+    private final Runnable DRAIN_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled.set(false);
+            drain();
+        }
+    };
+}
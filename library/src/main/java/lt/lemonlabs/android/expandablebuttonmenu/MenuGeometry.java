@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.content.Context;
+import android.util.DisplayMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable pixel layout of a menu, computed from screen metrics and the fractional
+ * size attributes. Menus with the same screen and attributes share one instance
+ * from a small process-wide cache.
+ */
+final class MenuGeometry {
+
+    /**
+     * Maximum number of cached geometries, least recently used ones are dropped first
+     */
+    private static final int MAX_CACHE_SIZE = 8;
+
+    private static final LinkedHashMap<Key, MenuGeometry> sCache = new LinkedHashMap<Key, MenuGeometry>(MAX_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, MenuGeometry> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Reused for cache lookups, guarded by sCache
+     */
+    private static final Key sLookupKey = new Key();
+
+    /**
+     * Size of the button that opens the menu and its bottom margin
+     */
+    final int mainButtonSize;
+    final int mainButtonBottomMargin;
+
+    /**
+     * Size of the close and menu buttons, their bottom margin and the extra margin
+     * centering them on the main button
+     */
+    final int otherButtonSize;
+    final int otherButtonBottomMargin;
+    final int extraMargin;
+
+    /**
+     * Bottom margin placing menu buttons where an expand translates them to, used
+     * instead of the translation below Honeycomb
+     */
+    final int expandedButtonBottomMargin;
+
+    /**
+     * Translation of expanded menu buttons
+     */
+    final float translationX;
+    final float translationY;
+
+    /**
+     * Radius of the radial menu ring and distance of its center from the bottom
+     */
+    final float radialRadius;
+    final float radialCenterFromBottom;
+
+    private MenuGeometry(Key key) {
+        final int sWidth = key.screenWidth;
+        final int sHeight = key.screenHeight;
+
+        extraMargin = (int) (sWidth * (key.mainButtonSize - key.otherButtonSize) / 2);
+
+        mainButtonSize = (int) (sWidth * key.mainButtonSize);
+        mainButtonBottomMargin = (int) (sHeight * key.bottomPadding);
+
+        otherButtonSize = (int) (sWidth * key.otherButtonSize);
+        otherButtonBottomMargin = (int) (sHeight * key.bottomPadding + extraMargin);
+
+        translationX = sWidth * key.buttonDistanceX;
+        translationY = sHeight * key.buttonDistanceY;
+        expandedButtonBottomMargin = (int) (sHeight * key.bottomPadding + translationY + extraMargin);
+
+        radialRadius = Math.max(translationX, translationY);
+        radialCenterFromBottom = sHeight * key.bottomPadding + extraMargin + otherButtonSize / 2f;
+    }
+
+    /**
+     * Returns the geometry of a menu, computing it only if no identical menu was laid out before
+     *
+     * @param context
+     * @param mainButtonSize  main button size in % of screen width
+     * @param otherButtonSize menu button size in % of screen width
+     * @param bottomPadding   button padding in % of screen height
+     * @param buttonDistanceX distance between expanded buttons in % of screen width
+     * @param buttonDistanceY distance between expanded and collapsed buttons in % of screen height
+     */
+    static MenuGeometry obtain(Context context, float mainButtonSize, float otherButtonSize, float bottomPadding,
+                               float buttonDistanceX, float buttonDistanceY) {
+        // Read for every lookup, the metrics of a recreated activity may differ after rotation
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        final int sWidth = metrics.widthPixels;
+        final int sHeight = metrics.heightPixels;
+        final float density = metrics.density;
+
+        synchronized (sCache) {
+            sLookupKey.set(sWidth, sHeight, density, mainButtonSize, otherButtonSize, bottomPadding, buttonDistanceX, buttonDistanceY);
+            MenuGeometry geometry = sCache.get(sLookupKey);
+            if (geometry == null) {
+                final Key key = new Key();
+                key.set(sWidth, sHeight, density, mainButtonSize, otherButtonSize, bottomPadding, buttonDistanceX, buttonDistanceY);
+                geometry = new MenuGeometry(key);
+                sCache.put(key, geometry);
+            }
+            return geometry;
+        }
+    }
+
+    private static final class Key {
+        int screenWidth;
+        int screenHeight;
+        float density;
+        float mainButtonSize;
+        float otherButtonSize;
+        float bottomPadding;
+        float buttonDistanceX;
+        float buttonDistanceY;
+
+        void set(int screenWidth, int screenHeight, float density, float mainButtonSize, float otherButtonSize,
+                 float bottomPadding, float buttonDistanceX, float buttonDistanceY) {
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+            this.density = density;
+            this.mainButtonSize = mainButtonSize;
+            this.otherButtonSize = otherButtonSize;
+            this.bottomPadding = bottomPadding;
+            this.buttonDistanceX = buttonDistanceX;
+            this.buttonDistanceY = buttonDistanceY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return screenWidth == key.screenWidth
+                    && screenHeight == key.screenHeight
+                    && Float.compare(density, key.density) == 0
+                    && Float.compare(mainButtonSize, key.mainButtonSize) == 0
+                    && Float.compare(otherButtonSize, key.otherButtonSize) == 0
+                    && Float.compare(bottomPadding, key.bottomPadding) == 0
+                    && Float.compare(buttonDistanceX, key.buttonDistanceX) == 0
+                    && Float.compare(buttonDistanceY, key.buttonDistanceY) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = screenWidth;
+            result = 31 * result + screenHeight;
+            result = 31 * result + Float.floatToIntBits(density);
+            result = 31 * result + Float.floatToIntBits(mainButtonSize);
+            result = 31 * result + Float.floatToIntBits(otherButtonSize);
+            result = 31 * result + Float.floatToIntBits(bottomPadding);
+            result = 31 * result + Float.floatToIntBits(buttonDistanceX);
+            result = 31 * result + Float.floatToIntBits(buttonDistanceY);
+            return result;
+        }
+    }
+}
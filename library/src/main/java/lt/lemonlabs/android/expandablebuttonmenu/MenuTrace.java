@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+
+/**
+ * Opt-in tracing of menu open and close. When enabled, each stage is wrapped in a
+ * named section visible in system traces (Android 4.3+) and the latency of each
+ * stage is recorded in a histogram that can be dumped with {@link #dump(PrintWriter)}.
+ */
+public class MenuTrace {
+
+    /**
+     * Recorded stages, from a tap to a settled menu
+     */
+    private static final int OPEN_TAP_TO_WINDOW_SHOWN = 0;
+    private static final int OPEN_WINDOW_SHOWN_TO_FIRST_FRAME = 1;
+    private static final int OPEN_FIRST_FRAME_TO_SETTLED = 2;
+    private static final int CLOSE_REQUEST_TO_FIRST_FRAME = 3;
+    private static final int CLOSE_FIRST_FRAME_TO_SETTLED = 4;
+
+    private static final LatencyHistogram[] sHistograms = {
+            new LatencyHistogram("open: tap -> window shown"),
+            new LatencyHistogram("open: window shown -> first frame"),
+            new LatencyHistogram("open: first frame -> settled"),
+            new LatencyHistogram("close: request -> first frame"),
+            new LatencyHistogram("close: first frame -> settled"),
+    };
+
+    private static volatile boolean mEnabled;
+
+    /**
+     * Start time of the stage in progress, 0 if no stage is in progress
+     */
+    private long mStageStart;
+    private int mStage;
+
+    public static void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Write recorded latencies of all stages
+     *
+     * @param writer
+     */
+    public static void dump(PrintWriter writer) {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.dump(writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Forget recorded latencies of all stages
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    static void beginSection(String name) {
+        if (mEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (mEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Called when the overlay button is tapped or show() is called
+     */
+    void onOpenRequested() {
+        startStage(OPEN_TAP_TO_WINDOW_SHOWN);
+    }
+
+    /**
+     * Called when the dialog window is shown
+     */
+    void onWindowShown() {
+        if (mStageStart != 0 && mStage == OPEN_TAP_TO_WINDOW_SHOWN) {
+            endStage();
+            startStage(OPEN_WINDOW_SHOWN_TO_FIRST_FRAME);
+        }
+    }
+
+    /**
+     * Called when the menu starts collapsing
+     */
+    void onCloseRequested() {
+        startStage(CLOSE_REQUEST_TO_FIRST_FRAME);
+    }
+
+    /**
+     * Called when the first frame of a transition is drawn
+     */
+    void onFirstFrame() {
+        if (mStageStart == 0) {
+            return;
+        }
+        if (mStage == OPEN_WINDOW_SHOWN_TO_FIRST_FRAME) {
+            endStage();
+            startStage(OPEN_FIRST_FRAME_TO_SETTLED);
+        } else if (mStage == CLOSE_REQUEST_TO_FIRST_FRAME) {
+            endStage();
+            startStage(CLOSE_FIRST_FRAME_TO_SETTLED);
+        }
+    }
+
+    /**
+     * Called when the menu is fully expanded or collapsed
+     */
+    void onSettled() {
+        if (mStageStart != 0 && (mStage == OPEN_FIRST_FRAME_TO_SETTLED || mStage == CLOSE_FIRST_FRAME_TO_SETTLED)) {
+            endStage();
+        }
+    }
+
+    private void startStage(int stage) {
+        if (mEnabled) {
+            mStage = stage;
+            mStageStart = SystemClock.uptimeMillis();
+        } else {
+            mStageStart = 0;
+        }
+    }
+
+    private void endStage() {
+        sHistograms[mStage].record(SystemClock.uptimeMillis() - mStageStart);
+        mStageStart = 0;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+/**
+ * Motion quality tiers used for expand and collapse transitions. Unless a tier
+ * is forced with {@link ExpandableMenuOverlay#setMotionQuality(MotionQuality)}
+ * it is picked automatically by {@link MotionQualityHelper}.
+ */
+public enum MotionQuality {
+
+    /**
+     * Default overshoot and anticipation curves with screen dim
+     */
+    FULL(300, 3.0f, true),
+
+    /**
+     * Shorter transition with softer curves
+     */
+    REDUCED(200, 1.5f, true),
+
+    /**
+     * Short transition with plain accelerate/decelerate curves and no screen dim
+     */
+    MINIMAL(150, 0f, false),
+
+    /**
+     * No transition at all, the menu is shown and hidden instantly
+     */
+    INSTANT(0, 0f, false);
+
+    /**
+     * Collapse and expand animation duration
+     */
+    final int duration;
+
+    /**
+     * Tension of the overshoot and anticipate interpolators
+     */
+    final float interpolatorWeight;
+
+    /**
+     * Flag indicating that the screen is dimmed behind the expanded menu
+     */
+    final boolean dim;
+
+    MotionQuality(int duration, float interpolatorWeight, boolean dim) {
+        this.duration = duration;
+        this.interpolatorWeight = interpolatorWeight;
+        this.dim = dim;
+    }
+
+    /**
+     * Returns the next cheaper tier, or this tier if it is already the cheapest animated one
+     */
+    MotionQuality downgrade() {
+        switch (this) {
+            case FULL:
+                return REDUCED;
+            case REDUCED:
+                return MINIMAL;
+        }
+        return this;
+    }
+}
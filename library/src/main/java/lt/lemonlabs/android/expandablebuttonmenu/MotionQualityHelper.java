@@ -0,0 +1,113 @@
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+import android.view.WindowManager;
+
+
+/**
+ * Picks a {@link MotionQuality} tier from device signals: the low RAM flag, the
+ * system animator duration scale and the measured frame times of previous transitions
+ */
+public class MotionQualityHelper {
+
+    /**
+     * A transition whose frames take on average this many display refresh periods is counted as slow
+     */
+    private static final float SLOW_FRAME_FACTOR = 1.5f;
+
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    /**
+     * Number of slow transitions out of the last eight that downgrade the tier once or twice
+     */
+    private static final int SLOW_TRANSITIONS_REDUCED = 3;
+    private static final int SLOW_TRANSITIONS_MINIMAL = 6;
+
+    /**
+     * Bit mask of the last eight measured transitions, a set bit marks a slow one
+     */
+    private static int mSlowTransitions;
+
+    /**
+     * Refresh rate of the default display, read once
+     */
+    private static float mRefreshRate;
+
+    /**
+     * Resolves the motion quality tier for the current device
+     *
+     * @param context
+     */
+    public static MotionQuality resolve(Context context) {
+        if (getAnimatorDurationScale(context) == 0f) {
+            return MotionQuality.INSTANT;
+        }
+
+        MotionQuality quality = isLowRamDevice(context) ? MotionQuality.MINIMAL : MotionQuality.FULL;
+
+        final int slow = Integer.bitCount(mSlowTransitions);
+        if (slow >= SLOW_TRANSITIONS_REDUCED) {
+            quality = quality.downgrade();
+        }
+        if (slow >= SLOW_TRANSITIONS_MINIMAL) {
+            quality = quality.downgrade();
+        }
+        return quality;
+    }
+
+    /**
+     * Records the measured frame times of a transition. Only the average frame interval
+     * counts, so the result does not depend on the duration of the tier in use.
+     *
+     * @param context
+     * @param frames number of frame intervals measured
+     * @param millis time those frame intervals took
+     */
+    public static void reportFrames(Context context, int frames, long millis) {
+        if (frames <= 0) {
+            return;
+        }
+        final float periodMillis = 1000f / getRefreshRate(context);
+        final boolean slow = millis > frames * periodMillis * SLOW_FRAME_FACTOR;
+        mSlowTransitions = ((mSlowTransitions << 1) | (slow ? 1 : 0)) & 0xFF;
+    }
+
+    /**
+     * Forgets all measured transitions
+     */
+    public static void resetMeasurements() {
+        mSlowTransitions = 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static float getAnimatorDurationScale(Context context) {
+        final ContentResolver resolver = context.getContentResolver();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return Settings.Global.getFloat(resolver, Settings.Global.ANIMATOR_DURATION_SCALE, 1f);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return Settings.System.getFloat(resolver, Settings.System.ANIMATOR_DURATION_SCALE, 1f);
+        }
+        return 1f;
+    }
+
+    private static float getRefreshRate(Context context) {
+        if (mRefreshRate == 0f) {
+            WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+            final float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+            mRefreshRate = refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE;
+        }
+        return mRefreshRate;
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            return am.isLowRamDevice();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+import android.widget.Scroller;
+
+import java.util.ArrayList;
+
+/**
+ * Scrollable half ring of menu items above the close button. Items come from an
+ * {@link Adapter} and only the slots visible on the arc are kept as live views,
+ * views scrolled off the arc are recycled for the items scrolled onto it.
+ */
+class RadialMenuView extends ViewGroup {
+
+    /**
+     * Distance between neighbouring items along the arc, in item sizes
+     */
+    private static final float ITEM_SPACING = 1.15f;
+
+    private Adapter mAdapter;
+    private ExpandableButtonMenu.OnRadialItemClick mListener;
+    private ExpandableButtonMenu.OnMenuPrefetch mPrefetchListener;
+
+    /**
+     * Ring geometry: item size, ring radius and distance of the ring center from the bottom
+     */
+    private int mItemSize;
+    private float mRadius;
+    private float mCenterFromBottom;
+
+    /**
+     * Scroll position along the arc in pixels and its bounds
+     */
+    private float mScroll = Float.NaN;
+    private float mMinScroll;
+    private float mMaxScroll;
+
+    /**
+     * Live item views by adapter position, the second array is swapped in on every layout
+     */
+    private SparseArray<View> mActiveViews = new SparseArray<View>();
+    private SparseArray<View> mNextActiveViews = new SparseArray<View>();
+
+    /**
+     * Recycled item views by view type
+     */
+    private ArrayList<View>[] mScrapViews;
+
+    private final Scroller mScroller;
+    private VelocityTracker mVelocityTracker;
+    private final int mTouchSlop;
+    private final int mMinimumVelocity;
+    private final int mMaximumVelocity;
+
+    private float mDownX;
+    private float mDownY;
+    private float mLastAngle;
+    private boolean mDragging;
+    private int mHoverPosition = -1;
+
+    private final DataSetObserver mDataSetObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            scrapActiveViews();
+            requestLayout();
+        }
+
+        @Override
+        public void onInvalidated() {
+            onChanged();
+        }
+    };
+
+    RadialMenuView(Context context) {
+        super(context);
+        mScroller = new Scroller(context);
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
+    }
+
+    @SuppressWarnings("unchecked")
+    void setAdapter(Adapter adapter) {
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+        }
+        recycleAll();
+        mAdapter = adapter;
+        mScrapViews = null;
+        if (adapter != null) {
+            adapter.registerDataSetObserver(mDataSetObserver);
+            mScrapViews = new ArrayList[adapter.getViewTypeCount()];
+            for (int i = 0; i < mScrapViews.length; i++) {
+                mScrapViews[i] = new ArrayList<View>();
+            }
+        }
+        mScroll = Float.NaN;
+        requestLayout();
+    }
+
+    Adapter getAdapter() {
+        return mAdapter;
+    }
+
+    void setOnRadialItemClickListener(ExpandableButtonMenu.OnRadialItemClick listener) {
+        mListener = listener;
+    }
+
+    void setOnMenuPrefetchListener(ExpandableButtonMenu.OnMenuPrefetch listener) {
+        mPrefetchListener = listener;
+    }
+
+    /**
+     * Sets the size of the ring
+     *
+     * @param itemSize         item width and height
+     * @param radius           distance of item centers from the ring center
+     * @param centerFromBottom distance of the ring center from the bottom of this view
+     */
+    void setGeometry(int itemSize, float radius, float centerFromBottom) {
+        mItemSize = itemSize;
+        mRadius = radius;
+        mCenterFromBottom = centerFromBottom;
+        requestLayout();
+    }
+
+    float getCenterFromBottom() {
+        return mCenterFromBottom;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec));
+
+        final int itemSpec = MeasureSpec.makeMeasureSpec(mItemSize, MeasureSpec.EXACTLY);
+        for (int i = 0; i < getChildCount(); i++) {
+            getChildAt(i).measure(itemSpec, itemSpec);
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        updateScrollBounds();
+        layoutItems();
+    }
+
+    private void updateScrollBounds() {
+        final int count = mAdapter != null ? mAdapter.getCount() : 0;
+        final float length = Math.max(0, count - 1) * mItemSize * ITEM_SPACING;
+        final float arc = (float) (Math.PI * mRadius);
+
+        if (length <= arc) {
+            // Few items are centered on the arc and can not be scrolled
+            mMinScroll = mMaxScroll = (length - arc) / 2;
+        } else {
+            mMinScroll = 0;
+            mMaxScroll = length - arc;
+        }
+        if (Float.isNaN(mScroll)) {
+            mScroll = mMinScroll;
+        }
+        mScroll = Math.max(mMinScroll, Math.min(mMaxScroll, mScroll));
+    }
+
+    /**
+     * Binds views for the positions visible on the arc, recycling the rest, and places them
+     */
+    private void layoutItems() {
+        if (mAdapter == null || mItemSize == 0 || mRadius == 0) {
+            return;
+        }
+
+        final float spacing = mItemSize * ITEM_SPACING;
+        final float arc = (float) (Math.PI * mRadius);
+        final int count = mAdapter.getCount();
+        final int first = Math.max(0, (int) Math.ceil((mScroll - spacing / 2) / spacing));
+        final int last = Math.min(count - 1, (int) Math.floor((mScroll + arc + spacing / 2) / spacing));
+
+        // Recycle views scrolled off the arc
+        for (int i = 0; i < mActiveViews.size(); i++) {
+            final int position = mActiveViews.keyAt(i);
+            if (position < first || position > last) {
+                final View child = mActiveViews.valueAt(i);
+                removeViewInLayout(child);
+                addScrapView(child);
+            } else {
+                mNextActiveViews.put(position, mActiveViews.valueAt(i));
+            }
+        }
+        mActiveViews.clear();
+
+        final float centerX = getWidth() / 2f;
+        final float centerY = getHeight() - mCenterFromBottom;
+        final int itemSpec = MeasureSpec.makeMeasureSpec(mItemSize, MeasureSpec.EXACTLY);
+
+        for (int position = first; position <= last; position++) {
+            View child = mNextActiveViews.get(position);
+            if (child == null) {
+                child = obtainView(position);
+                final LayoutParams lp = generateDefaultLayoutParams();
+                lp.viewType = mAdapter.getItemViewType(position);
+                addViewInLayout(child, -1, lp, true);
+                child.measure(itemSpec, itemSpec);
+                mNextActiveViews.put(position, child);
+            }
+
+            final double angle = Math.PI - (position * spacing - mScroll) / mRadius;
+            final int x = (int) (centerX + mRadius * Math.cos(angle) - mItemSize / 2f);
+            final int y = (int) (centerY - mRadius * Math.sin(angle) - mItemSize / 2f);
+            child.layout(x, y, x + mItemSize, y + mItemSize);
+        }
+
+        final SparseArray<View> active = mActiveViews;
+        mActiveViews = mNextActiveViews;
+        mNextActiveViews = active;
+    }
+
+    private View obtainView(int position) {
+        final int type = mAdapter.getItemViewType(position);
+        final ArrayList<View> scrap = type >= 0 ? mScrapViews[type] : null;
+        final View convertView = scrap != null && !scrap.isEmpty() ? scrap.remove(scrap.size() - 1) : null;
+
+        final View child = mAdapter.getView(position, convertView, this);
+        if (convertView != null && child != convertView) {
+            scrap.add(convertView);
+        }
+        return child;
+    }
+
+    /**
+     * Keeps a detached item view for reuse under the view type it was bound with
+     *
+     * @param child
+     */
+    private void addScrapView(View child) {
+        final int type = ((LayoutParams) child.getLayoutParams()).viewType;
+        if (type >= 0 && mScrapViews != null && type < mScrapViews.length) {
+            mScrapViews[type].add(child);
+        }
+    }
+
+    /**
+     * Moves all item views to the scrap when the data changes, positions no longer
+     * match the adapter but the views can be bound again
+     */
+    private void scrapActiveViews() {
+        for (int i = 0; i < mActiveViews.size(); i++) {
+            addScrapView(mActiveViews.valueAt(i));
+        }
+        mActiveViews.clear();
+        removeAllViewsInLayout();
+        invalidate();
+    }
+
+    /**
+     * Drops all item views, their view types may not exist in a new adapter
+     */
+    private void recycleAll() {
+        removeAllViewsInLayout();
+        mActiveViews.clear();
+        if (mScrapViews != null) {
+            for (ArrayList<View> scrap : mScrapViews) {
+                scrap.clear();
+            }
+        }
+        invalidate();
+    }
+
+    private void scrollTo(float scroll) {
+        scroll = Math.max(mMinScroll, Math.min(mMaxScroll, scroll));
+        if (scroll != mScroll) {
+            mScroll = scroll;
+            layoutItems();
+            invalidate();
+        }
+    }
+
+    /**
+     * Angle of a touch point around the ring center, counterclockwise from the right
+     */
+    private float touchAngle(float x, float y) {
+        return (float) Math.atan2((getHeight() - mCenterFromBottom) - y, x - getWidth() / 2f);
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent event) {
+        switch (event.getAction() & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+                startTouch(event);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (Math.abs(event.getX() - mDownX) > mTouchSlop || Math.abs(event.getY() - mDownY) > mTouchSlop) {
+                    mDragging = true;
+                    mLastAngle = touchAngle(event.getX(), event.getY());
+                }
+                break;
+        }
+        return mDragging;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+
+        switch (event.getAction() & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+                startTouch(event);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                final float angle = touchAngle(event.getX(), event.getY());
+                if (!mDragging && (Math.abs(event.getX() - mDownX) > mTouchSlop || Math.abs(event.getY() - mDownY) > mTouchSlop)) {
+                    mDragging = true;
+                    mLastAngle = angle;
+                }
+                if (mDragging) {
+                    float delta = angle - mLastAngle;
+                    if (delta > Math.PI) delta -= 2 * Math.PI;
+                    if (delta < -Math.PI) delta += 2 * Math.PI;
+                    scrollTo(mScroll + delta * mRadius);
+                    mLastAngle = angle;
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mDragging) {
+                    fling(event);
+                } else {
+                    onTap(event.getX(), event.getY());
+                }
+                endTouch();
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                endTouch();
+                break;
+        }
+        return true;
+    }
+
+    private void startTouch(MotionEvent event) {
+        mDownX = event.getX();
+        mDownY = event.getY();
+        mDragging = false;
+        mScroller.forceFinished(true);
+        notifyItemIntent(positionAt(mDownX, mDownY));
+    }
+
+    /**
+     * Reports the item under the pointer once each time the pointer moves onto an item.
+     * Hover events are only dispatched on Android 4.0 and newer
+     */
+    @Override
+    public boolean onHoverEvent(MotionEvent event) {
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_HOVER_ENTER:
+            case MotionEvent.ACTION_HOVER_MOVE:
+                final int position = positionAt(event.getX(), event.getY());
+                if (position != mHoverPosition) {
+                    mHoverPosition = position;
+                    notifyItemIntent(position);
+                }
+                break;
+            case MotionEvent.ACTION_HOVER_EXIT:
+                mHoverPosition = -1;
+                break;
+        }
+        return super.onHoverEvent(event);
+    }
+
+    private void notifyItemIntent(int position) {
+        if (position >= 0 && mPrefetchListener != null) {
+            mPrefetchListener.onRadialItemIntent(position);
+        }
+    }
+
+    private void endTouch() {
+        mDragging = false;
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    /**
+     * Flings along the arc with the tangential part of the touch velocity
+     */
+    private void fling(MotionEvent event) {
+        mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+        final float angle = touchAngle(event.getX(), event.getY());
+        final float velocity = (float) (-Math.sin(angle) * mVelocityTracker.getXVelocity()
+                - Math.cos(angle) * mVelocityTracker.getYVelocity());
+
+        if (Math.abs(velocity) > mMinimumVelocity) {
+            mScroller.fling((int) mScroll, 0, (int) velocity, 0, (int) mMinScroll, (int) mMaxScroll, 0, 0);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(mScroller.getCurrX());
+            invalidate();
+        }
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        return new LayoutParams(p);
+    }
+
+    /**
+     * Reports a tap on an item, or clicks this view if no item was hit
+     */
+    private void onTap(float x, float y) {
+        final int position = positionAt(x, y);
+        if (position >= 0) {
+            if (mListener != null) mListener.onItemClick(position);
+            return;
+        }
+        performClick();
+    }
+
+    /**
+     * Returns the adapter position of the item view under a point, or -1 if there is none
+     */
+    private int positionAt(float x, float y) {
+        for (int i = 0; i < mActiveViews.size(); i++) {
+            final View child = mActiveViews.valueAt(i);
+            if (x >= child.getLeft() && x < child.getRight() && y >= child.getTop() && y < child.getBottom()) {
+                return mActiveViews.keyAt(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Item layout params, remembering the view type an item view was bound with
+     */
+    static class LayoutParams extends ViewGroup.LayoutParams {
+
+        int viewType = -1;
+
+        LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        LayoutParams(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+        }
+    }
+}
@@ -2,11 +2,7 @@ package lt.lemonlabs.android.expandablebuttonmenu;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Point;
-import android.os.Build;
 import android.util.TypedValue;
-import android.view.Display;
-import android.view.WindowManager;
 
 
 /**
@@ -14,36 +10,23 @@ import android.view.WindowManager;
  */
 public class ScreenHelper {
 
-    private static int mWidth;
-    private static int mHeight;
-
+    /**
+     * Screen width of the current configuration. Not cached, the size changes with
+     * the orientation and activities may be recreated without notifying views.
+     *
+     * @param context
+     */
     public static int getScreenWidth(Context context) {
-        if (mWidth == 0) {
-            calculateScreenDimensions(context);
-        }
-        return mWidth;
+        return context.getResources().getDisplayMetrics().widthPixels;
     }
 
+    /**
+     * Screen height of the current configuration, see {@link #getScreenWidth(Context)}
+     *
+     * @param context
+     */
     public static int getScreenHeight(Context context) {
-        if (mHeight == 0) {
-            calculateScreenDimensions(context);
-        }
-        return mHeight;
-    }
-
-    private static void calculateScreenDimensions(Context context) {
-        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        Display display = wm.getDefaultDisplay();
-
-        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
-            final Point point = new Point();
-            display.getSize(point);
-            mWidth = point.x;
-            mHeight = point.y;
-        } else {
-            mWidth = display.getWidth();
-            mHeight = display.getHeight();
-        }
+        return context.getResources().getDisplayMetrics().heightPixels;
     }
 
     public static float dpToPx(Context context, int dp) {
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import android.app.Activity;
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the menu against the budgets in menu-budgets.properties. Allocations and
+ * construction cost are budgeted in created objects, see {@link MenuTestRunner}.
+ */
+@RunWith(MenuTestRunner.class)
+@Config(emulateSdk = 18)
+public class MenuPerformanceBudgetTest {
+
+    private static final int SCREEN_WIDTH = 480;
+    private static final int SCREEN_HEIGHT = 800;
+
+    private static final int FRAME_MILLIS = 16;
+
+    /**
+     * Frames to wait for a transition to settle before failing
+     */
+    private static final int MAX_FRAMES = 120;
+
+    private Properties mBudgets;
+    private Activity mActivity;
+    private CountingOverlay mOverlay;
+    private CountingMenu mMenu;
+
+    private boolean mSettled;
+
+    @Before
+    public void setUp() throws IOException {
+        mBudgets = new Properties();
+        InputStream in = getClass().getClassLoader().getResourceAsStream("menu-budgets.properties");
+        try {
+            mBudgets.load(in);
+        } finally {
+            in.close();
+        }
+
+        MotionQualityHelper.resetMeasurements();
+        mActivity = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        mOverlay = new CountingOverlay(mActivity);
+        mOverlay.setMotionQuality(MotionQuality.FULL);
+        mOverlay.setOnMenuSettledListener(new ExpandableMenuOverlay.OnMenuSettled() {
+            @Override
+            public void onMenuSettled(boolean expanded) {
+                mSettled = true;
+            }
+        });
+        mMenu = (CountingMenu) mOverlay.getButtonMenu();
+    }
+
+    @Test
+    public void viewCount() {
+        final int count = countViews(mMenu);
+        assertBudget("view.count", count);
+    }
+
+    @Test
+    public void measureAndLayoutPassesOfShow() {
+        layoutIfRequested();
+        mMenu.resetPasses();
+
+        mOverlay.show();
+        runUntilSettled();
+
+        assertTrue(mMenu.isExpanded());
+        assertBudget("open.measure.passes", mMenu.mMeasurePasses);
+        assertBudget("open.layout.passes", mMenu.mLayoutPasses);
+    }
+
+    @Test
+    public void transitionAllocations() {
+        // The first open and close fill caches
+        mOverlay.show();
+        runUntilSettled();
+        mOverlay.collapse();
+        runUntilSettled();
+
+        final long openStart = MenuTestRunner.getCreatedObjects();
+        mOverlay.show();
+        runUntilSettled();
+        assertBudget("open.objects", MenuTestRunner.getCreatedObjects() - openStart);
+
+        final long closeStart = MenuTestRunner.getCreatedObjects();
+        mOverlay.collapse();
+        runUntilSettled();
+        assertBudget("close.objects", MenuTestRunner.getCreatedObjects() - closeStart);
+    }
+
+    @Test
+    public void constructionCost() {
+        // The first menu fills the geometry cache, like every menu after the first one in an app
+        new ExpandableButtonMenu(mActivity);
+
+        final long start = MenuTestRunner.getCreatedObjects();
+        new ExpandableButtonMenu(mActivity);
+        assertBudget("construction.objects", MenuTestRunner.getCreatedObjects() - start);
+    }
+
+    /**
+     * Runs frames until the menu reports it is expanded or collapsed. Each frame lays out
+     * the dialog window if requested, like a view traversal, and then runs the animations.
+     */
+    private void runUntilSettled() {
+        mSettled = false;
+        for (int frame = 0; frame < MAX_FRAMES && !mSettled; frame++) {
+            layoutIfRequested();
+            Robolectric.getUiThreadScheduler().advanceBy(FRAME_MILLIS);
+        }
+        assertTrue("Menu did not settle within " + MAX_FRAMES + " frames", mSettled);
+    }
+
+    private void layoutIfRequested() {
+        final View root = mMenu.getRootView();
+        if (root.isLayoutRequested()) {
+            root.measure(View.MeasureSpec.makeMeasureSpec(SCREEN_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+            root.layout(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        }
+    }
+
+    private void assertBudget(String name, long actual) {
+        final long budget = Long.parseLong(mBudgets.getProperty(name));
+        assertTrue(name + " is " + actual + ", budget is " + budget, actual <= budget);
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    private static class CountingOverlay extends ExpandableMenuOverlay {
+
+        CountingOverlay(Context context) {
+            super(context);
+        }
+
+        @Override
+        ExpandableButtonMenu createButtonMenu(AttributeSet attrs) {
+            return new CountingMenu(getContext(), attrs);
+        }
+    }
+
+    private static class CountingMenu extends ExpandableButtonMenu {
+
+        int mMeasurePasses;
+        int mLayoutPasses;
+
+        CountingMenu(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        void resetPasses() {
+            mMeasurePasses = 0;
+            mLayoutPasses = 0;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            mMeasurePasses++;
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            super.onLayout(changed, l, t, r, b);
+            mLayoutPasses++;
+        }
+    }
+}
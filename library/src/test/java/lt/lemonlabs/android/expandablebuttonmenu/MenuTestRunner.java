@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 Lemon Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lt.lemonlabs.android.expandablebuttonmenu;
+
+import org.junit.runners.model.InitializationError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.SdkConfig;
+import org.robolectric.bytecode.ClassHandler;
+import org.robolectric.bytecode.ClassInfo;
+import org.robolectric.bytecode.Setup;
+import org.robolectric.bytecode.ShadowMap;
+import org.robolectric.bytecode.ShadowWrangler;
+
+/**
+ * Test runner that counts objects created by the library and the Android framework.
+ * Robolectric's own objects and JDK objects such as strings and arrays are not counted,
+ * so the count of a transition is the same on every run.
+ */
+public class MenuTestRunner extends RobolectricTestRunner {
+
+    private static final String LIBRARY_PACKAGE = MenuTestRunner.class.getPackage().getName() + ".";
+
+    /**
+     * Instances of instrumented classes created so far, only touched on the test thread
+     */
+    private static long sCreatedObjects;
+
+    public MenuTestRunner(Class<?> testClass) throws InitializationError {
+        super(testClass);
+    }
+
+    /**
+     * Returns the number of library and framework objects created so far
+     */
+    public static long getCreatedObjects() {
+        return sCreatedObjects;
+    }
+
+    @Override
+    public Setup createSetup() {
+        return new Setup() {
+            @Override
+            public boolean shouldInstrument(ClassInfo classInfo) {
+                return super.shouldInstrument(classInfo) || isLibraryClass(classInfo);
+            }
+
+            @Override
+            public boolean shouldAcquire(String name) {
+                // Loaded once by the parent class loader so the tests see the same counter
+                return !name.startsWith(MenuTestRunner.class.getName()) && super.shouldAcquire(name);
+            }
+        };
+    }
+
+    @Override
+    protected ClassHandler createClassHandler(ShadowMap shadowMap, SdkConfig sdkConfig) {
+        return new ShadowWrangler(shadowMap, sdkConfig) {
+            @Override
+            public Object initializing(Object instance) {
+                sCreatedObjects++;
+                return super.initializing(instance);
+            }
+        };
+    }
+
+    /**
+     * Library classes are instrumented so their instances are counted, tests are not
+     */
+    private static boolean isLibraryClass(ClassInfo classInfo) {
+        final String name = classInfo.getName();
+        return name.startsWith(LIBRARY_PACKAGE) && !name.contains("Test") && !classInfo.isInterface();
+    }
+}